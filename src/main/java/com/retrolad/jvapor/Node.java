@@ -0,0 +1,449 @@
+package com.retrolad.jvapor;
+
+/**
+ * A base class for the nodes of an executable tree.
+ *
+ * <p>The tree is built from an {@link Expr} by {@link NodeBuilder} and
+ * evaluates to {@link Value} encoded values. Binary nodes start out
+ * uninitialized. The first time one runs it looks at the types of its
+ * operands and replaces itself with a node specialized for them, e.g.
+ * {@code 1 + 2} becomes a {@link DoubleAdd}. A specialized node only
+ * checks that its guess still holds. When it doesn't, the node replaces
+ * itself with the {@link Generic} one that handles every type and never
+ * specializes again.
+ *
+ * <pre>
+ *   Uninitialized ──→ DoubleAdd, StringConcat, ... ──→ Generic
+ * </pre>
+ *
+ * <p>Binary nodes whose types {@link TypeInference} has proven skip all
+ * that and are built as {@link ProvenDouble} or {@link ProvenConcat},
+ * which don't check their operands at all.
+ */
+abstract class Node {
+    /**
+     * The node this one is a child of, needed to replace it.
+     */
+    Node parent;
+
+    abstract long execute(Value.Heap heap);
+
+    /**
+     * Swaps a child of this node for another one.
+     */
+    void replaceChild(Node oldChild, Node newChild) {
+        throw new IllegalStateException(getClass().getSimpleName() + " has no children.");
+    }
+
+    /**
+     * Puts the given node in place of this one in the tree.
+     * @return The new node
+     */
+    <T extends Node> T replace(T node) {
+        node.parent = parent;
+        parent.replaceChild(this, node);
+        return node;
+    }
+
+    <T extends Node> T adopt(T child) {
+        child.parent = this;
+        return child;
+    }
+
+    /**
+     * Top of the tree, so the outermost node can replace itself as well.
+     */
+    static class Root extends Node {
+        Root(Node body) {
+            this.body = adopt(body);
+        }
+
+        @Override
+        long execute(Value.Heap heap) {
+            return body.execute(heap);
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            body = adopt(newChild);
+        }
+
+        Node body;
+    }
+
+    /**
+     * Reports the time spent in a node to the {@link Profiler}.
+     */
+    static class Profiled extends Node {
+        Profiled(Expr expr, Profiler profiler, Node child) {
+            this.expr = expr;
+            this.profiler = profiler;
+            this.child = adopt(child);
+        }
+
+        @Override
+        long execute(Value.Heap heap) {
+            profiler.enter(expr);
+            try {
+                return child.execute(heap);
+            } finally {
+                profiler.exit(expr);
+            }
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            child = adopt(newChild);
+        }
+
+        final Expr expr;
+        final Profiler profiler;
+        Node child;
+    }
+
+    static class Literal extends Node {
+        Literal(long value) {
+            this.value = value;
+        }
+
+        @Override
+        long execute(Value.Heap heap) {
+            return value;
+        }
+
+        final long value;
+    }
+
+    static class Negate extends Node {
+        Negate(Token operator, Node right) {
+            this.operator = operator;
+            this.right = adopt(right);
+        }
+
+        @Override
+        long execute(Value.Heap heap) {
+            long value = right.execute(heap);
+            if (!Value.isNumber(value)) {
+                throw new RuntimeError(operator, "Operand must be a number.");
+            }
+            return Value.number(-Value.asNumber(value));
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            right = adopt(newChild);
+        }
+
+        final Token operator;
+        Node right;
+    }
+
+    static class Not extends Node {
+        Not(Node right) {
+            this.right = adopt(right);
+        }
+
+        @Override
+        long execute(Value.Heap heap) {
+            return Value.bool(!Value.isTruthy(right.execute(heap)));
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            right = adopt(newChild);
+        }
+
+        Node right;
+    }
+
+    /**
+     * Evaluates both operands and combines them. Subclasses decide
+     * which types they expect.
+     */
+    abstract static class Binary extends Node {
+        Binary(Node left, Token operator, Node right) {
+            this.left = adopt(left);
+            this.operator = operator;
+            this.right = adopt(right);
+        }
+
+        @Override
+        long execute(Value.Heap heap) {
+            long l = left.execute(heap);
+            long r = right.execute(heap);
+            return evaluate(l, r, heap);
+        }
+
+        abstract long evaluate(long l, long r, Value.Heap heap);
+
+        /**
+         * Gives up on specialization once the operand types didn't match.
+         */
+        long generalize(long l, long r, Value.Heap heap) {
+            return replace(new Generic(left, operator, right)).evaluate(l, r, heap);
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if (left == oldChild) {
+                left = adopt(newChild);
+            } else {
+                right = adopt(newChild);
+            }
+        }
+
+        Node left;
+        final Token operator;
+        Node right;
+    }
+
+    /**
+     * A binary node that hasn't run yet.
+     */
+    static class Uninitialized extends Binary {
+        Uninitialized(Node left, Token operator, Node right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        long evaluate(long l, long r, Value.Heap heap) {
+            boolean numbers = Value.isNumber(l) && Value.isNumber(r);
+            boolean strings = heap.isString(l) && heap.isString(r);
+            return replace(specialize(left, operator, right, numbers, strings)).evaluate(l, r, heap);
+        }
+    }
+
+    /**
+     * Picks the node for a binary operator given what is known about
+     * its operands.
+     * @param numbers Both operands are numbers
+     * @param strings Both operands are strings
+     */
+    static Binary specialize(Node left, Token operator, Node right, boolean numbers, boolean strings) {
+        if (numbers) {
+            switch (operator.type) {
+                case PLUS:          return new DoubleAdd(left, operator, right);
+                case MINUS:         return new DoubleSubtract(left, operator, right);
+                case STAR:          return new DoubleMultiply(left, operator, right);
+                case SLASH:         return new DoubleDivide(left, operator, right);
+                case GREATER:       return new DoubleGreater(left, operator, right);
+                case GREATER_EQUAL: return new DoubleGreaterEqual(left, operator, right);
+                case LESS:          return new DoubleLess(left, operator, right);
+                case LESS_EQUAL:    return new DoubleLessEqual(left, operator, right);
+                default: break;
+            }
+        }
+
+        if (operator.type == TokenType.PLUS && strings) {
+            return new StringConcat(left, operator, right);
+        }
+
+        return new Generic(left, operator, right);
+    }
+
+    /**
+     * Picks an unguarded node for a binary operator whose operand types
+     * were proven ahead of time.
+     * @param numbers Both operands are numbers
+     * @param strings Both operands are strings
+     */
+    static Binary proven(Node left, Token operator, Node right, boolean numbers, boolean strings) {
+        DoubleOperation operation = numbers ? DoubleOperation.of(operator.type) : null;
+        if (operation != null) return new ProvenDouble(left, operator, right, operation);
+        if (operator.type == TokenType.PLUS && strings) return new ProvenConcat(left, operator, right);
+        return new Generic(left, operator, right);
+    }
+
+    /**
+     * What a binary operator does to two numbers, shared by the guarded
+     * and the unguarded nodes.
+     */
+    enum DoubleOperation {
+        ADD           { @Override long apply(double a, double b) { return Value.number(a + b); } },
+        SUBTRACT      { @Override long apply(double a, double b) { return Value.number(a - b); } },
+        MULTIPLY      { @Override long apply(double a, double b) { return Value.number(a * b); } },
+        DIVIDE        { @Override long apply(double a, double b) { return Value.number(a / b); } },
+        GREATER       { @Override long apply(double a, double b) { return Value.bool(a > b); } },
+        GREATER_EQUAL { @Override long apply(double a, double b) { return Value.bool(a >= b); } },
+        LESS          { @Override long apply(double a, double b) { return Value.bool(a < b); } },
+        LESS_EQUAL    { @Override long apply(double a, double b) { return Value.bool(a <= b); } };
+
+        abstract long apply(double a, double b);
+
+        /**
+         * @return The operation of the operator, {@code null} if it
+         * doesn't work on numbers only
+         */
+        static DoubleOperation of(TokenType type) {
+            switch (type) {
+                case PLUS:          return ADD;
+                case MINUS:         return SUBTRACT;
+                case STAR:          return MULTIPLY;
+                case SLASH:         return DIVIDE;
+                case GREATER:       return GREATER;
+                case GREATER_EQUAL: return GREATER_EQUAL;
+                case LESS:          return LESS;
+                case LESS_EQUAL:    return LESS_EQUAL;
+                default:            return null;
+            }
+        }
+    }
+
+    /**
+     * Arithmetic or comparison on two numbers.
+     */
+    abstract static class DoubleBinary extends Binary {
+        DoubleBinary(Node left, Token operator, Node right, DoubleOperation operation) {
+            super(left, operator, right);
+            this.operation = operation;
+        }
+
+        @Override
+        long evaluate(long l, long r, Value.Heap heap) {
+            if (Value.isNumber(l) && Value.isNumber(r)) {
+                return operation.apply(Value.asNumber(l), Value.asNumber(r));
+            }
+            return generalize(l, r, heap);
+        }
+
+        final DoubleOperation operation;
+    }
+
+    static class DoubleAdd extends DoubleBinary {
+        DoubleAdd(Node left, Token operator, Node right) {
+            super(left, operator, right, DoubleOperation.ADD);
+        }
+    }
+
+    static class DoubleSubtract extends DoubleBinary {
+        DoubleSubtract(Node left, Token operator, Node right) {
+            super(left, operator, right, DoubleOperation.SUBTRACT);
+        }
+    }
+
+    static class DoubleMultiply extends DoubleBinary {
+        DoubleMultiply(Node left, Token operator, Node right) {
+            super(left, operator, right, DoubleOperation.MULTIPLY);
+        }
+    }
+
+    static class DoubleDivide extends DoubleBinary {
+        DoubleDivide(Node left, Token operator, Node right) {
+            super(left, operator, right, DoubleOperation.DIVIDE);
+        }
+    }
+
+    static class DoubleGreater extends DoubleBinary {
+        DoubleGreater(Node left, Token operator, Node right) {
+            super(left, operator, right, DoubleOperation.GREATER);
+        }
+    }
+
+    static class DoubleGreaterEqual extends DoubleBinary {
+        DoubleGreaterEqual(Node left, Token operator, Node right) {
+            super(left, operator, right, DoubleOperation.GREATER_EQUAL);
+        }
+    }
+
+    static class DoubleLess extends DoubleBinary {
+        DoubleLess(Node left, Token operator, Node right) {
+            super(left, operator, right, DoubleOperation.LESS);
+        }
+    }
+
+    static class DoubleLessEqual extends DoubleBinary {
+        DoubleLessEqual(Node left, Token operator, Node right) {
+            super(left, operator, right, DoubleOperation.LESS_EQUAL);
+        }
+    }
+
+    /**
+     * Arithmetic or comparison on operands proven to be numbers.
+     */
+    static class ProvenDouble extends Binary {
+        ProvenDouble(Node left, Token operator, Node right, DoubleOperation operation) {
+            super(left, operator, right);
+            this.operation = operation;
+        }
+
+        @Override
+        long evaluate(long l, long r, Value.Heap heap) {
+            return operation.apply(Value.asNumber(l), Value.asNumber(r));
+        }
+
+        final DoubleOperation operation;
+    }
+
+    /**
+     * Concatenation of operands proven to be strings.
+     */
+    static class ProvenConcat extends Binary {
+        ProvenConcat(Node left, Token operator, Node right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        long evaluate(long l, long r, Value.Heap heap) {
+            return heap.concat(l, r);
+        }
+    }
+
+    static class StringConcat extends Binary {
+        StringConcat(Node left, Token operator, Node right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        long evaluate(long l, long r, Value.Heap heap) {
+            if (heap.isString(l) && heap.isString(r)) {
+                return heap.concat(l, r);
+            }
+            return generalize(l, r, heap);
+        }
+    }
+
+    /**
+     * Handles operands of any type, checking them on every run.
+     */
+    static class Generic extends Binary {
+        Generic(Node left, Token operator, Node right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        long evaluate(long l, long r, Value.Heap heap) {
+            switch (operator.type) {
+                case EQUAL_EQUAL: return Value.bool(heap.isEqual(l, r));
+                case BANG_EQUAL:  return Value.bool(!heap.isEqual(l, r));
+                case PLUS:
+                    if (Value.isNumber(l) && Value.isNumber(r)) {
+                        return Value.number(Value.asNumber(l) + Value.asNumber(r));
+                    }
+                    if (heap.isString(l) && heap.isString(r)) {
+                        return heap.concat(l, r);
+                    }
+                    throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+                default:
+                    break;
+            }
+
+            if (!Value.isNumber(l) || !Value.isNumber(r)) {
+                throw new RuntimeError(operator, "Operands must be numbers.");
+            }
+
+            double a = Value.asNumber(l);
+            double b = Value.asNumber(r);
+            switch (operator.type) {
+                case MINUS:         return Value.number(a - b);
+                case STAR:          return Value.number(a * b);
+                case SLASH:         return Value.number(a / b);
+                case GREATER:       return Value.bool(a > b);
+                case GREATER_EQUAL: return Value.bool(a >= b);
+                case LESS:          return Value.bool(a < b);
+                case LESS_EQUAL:    return Value.bool(a <= b);
+                default:
+                    throw new RuntimeError(operator, "Unknown binary operator.");
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.retrolad.jvapor;
+
+/**
+ * Turns an {@link Expr} into an executable {@link Node} tree.
+ *
+ * <p>Literal values are packed into {@link Value}s once, here, so the
+ * tree never has to box them while it runs. When a {@link Profiler} is
+ * given, every node is wrapped so its time is reported back against
+ * the expression it came from.
+ *
+ * <p>When the types found by {@link TypeInference} are given, fully
+ * typed binary expressions are built as nodes that don't check the types
+ * of their operands at all.
+ */
+class NodeBuilder implements Expr.Visitor<Node> {
+    private final Value.Heap heap;
+    private final Profiler profiler;
+    private final TypeInference types;
+
+    NodeBuilder(Value.Heap heap, Profiler profiler, TypeInference types) {
+        this.heap = heap;
+        this.profiler = profiler;
+        this.types = types;
+    }
+
+    Node.Root build(Expr expr) {
+        return new Node.Root(node(expr));
+    }
+
+    @Override
+    public Node visitBinaryExpr(Expr.Binary expr) {
+        Node left = node(expr.left);
+        Node right = node(expr.right);
+
+        if (types != null && types.isFullyTyped(expr)) {
+            StaticType l = types.typeOf(expr.left);
+            StaticType r = types.typeOf(expr.right);
+            boolean numbers = l == StaticType.NUMBER && r == StaticType.NUMBER;
+            boolean strings = l == StaticType.STRING && r == StaticType.STRING;
+            return Node.proven(left, expr.operator, right, numbers, strings);
+        }
+
+        return new Node.Uninitialized(left, expr.operator, right);
+    }
+
+    /**
+     * Groupings only matter to the parser, the tree keeps their content.
+     */
+    @Override
+    public Node visitGroupingExpr(Expr.Grouping expr) {
+        return node(expr.expression);
+    }
+
+    @Override
+    public Node visitLiteralExpr(Expr.Literal expr) {
+        return new Node.Literal(heap.box(expr.value));
+    }
+
+    @Override
+    public Node visitUnaryExpr(Expr.Unary expr) {
+        Node right = node(expr.right);
+        if (expr.operator.type == TokenType.BANG) return new Node.Not(right);
+        return new Node.Negate(expr.operator, right);
+    }
+
+    private Node node(Expr expr) {
+        Node node = expr.accept(this);
+        if (profiler == null) return node;
+        return new Node.Profiled(expr, profiler, node);
+    }
+}
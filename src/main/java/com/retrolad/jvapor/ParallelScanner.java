@@ -0,0 +1,244 @@
+package com.retrolad.jvapor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Scans a large source on several cores. Produces exactly the same tokens
+ * and errors as {@link Scanner#scanTokens()}.
+ *
+ * <p>The source is cut into chunks right after a newline, since no token
+ * but a string can span lines. Scanning goes in two parallel passes:
+ * <ol>
+ * <li>count the newlines in every chunk, which gives the line each chunk
+ *     starts on;
+ * <li>scan every chunk on its own, starting from that line.
+ * </ol>
+ * The chunks are then joined in order, each one as soon as it's scanned.
+ * At most {@link #AHEAD} chunks per core are scanned ahead of the one
+ * being joined, so however long the source and however slow whatever
+ * takes the tokens, only that many chunks of tokens are held at once.
+ * A chunk that ends inside a string was scanned with the wrong idea of
+ * what follows, so everything from that string's opening quote is
+ * scanned again up to the next chunk boundary, and so on until a string
+ * ends. Errors are reported as their chunk is joined, so they come out
+ * in source order.
+ */
+class ParallelScanner {
+    // Sources shorter than this are not worth splitting
+    private static final int MIN_CHUNK = 64 * 1024;
+    // Chunks longer than this would hold too many tokens at once
+    private static final int MAX_CHUNK = 1024 * 1024;
+    // Number of chunks per core that may be scanned ahead of the one
+    // being handed over
+    private static final int AHEAD = 2;
+
+    private static final ForkJoinPool pool = new ForkJoinPool();
+
+    private final String source;
+    private final int chunkSize;
+
+    ParallelScanner(String source) {
+        this(source, Math.min(MAX_CHUNK,
+                Math.max(MIN_CHUNK, source.length() / (pool.getParallelism() * 4))));
+    }
+
+    ParallelScanner(String source, int chunkSize) {
+        this.source = source;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Receives the tokens in source order, a chunk at a time
+     */
+    private interface Output {
+        void write(List<Token> tokens);
+    }
+
+    /**
+     * A part of the source and what scanning it produced
+     */
+    private static class Chunk {
+        final int from;
+        final int to;
+        int newlines = 0;
+        int line = 1;
+        List<Token> tokens;
+        List<Scanner.ScanError> errors;
+        int openString;
+        int openStringLine;
+
+        Chunk(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    List<Token> scanTokens() {
+        if (source.length() <= chunkSize) return new Scanner(source).scanTokens();
+
+        final List<Token> tokens = new ArrayList<>();
+        scan(new Output() {
+            @Override
+            public void write(List<Token> chunk) {
+                tokens.addAll(chunk);
+            }
+        });
+        return tokens;
+    }
+
+    /**
+     * Scans like {@link #scanTokens()}, but hands the tokens of every chunk
+     * over to the ring as soon as the chunks before it are done, so a
+     * parser can start on the beginning while the rest is being scanned.
+     * @param ring Ring to publish batches to
+     * @param batchSize Maximum number of tokens in a batch
+     */
+    void scanTokens(final TokenRing ring, final int batchSize) {
+        if (source.length() <= chunkSize) {
+            new Scanner(source).scanTokens(ring, batchSize);
+            return;
+        }
+
+        scan(new Output() {
+            @Override
+            public void write(List<Token> chunk) {
+                for (int i = 0; i < chunk.size(); i += batchSize) {
+                    List<Token> batch = chunk.subList(i, Math.min(i + batchSize, chunk.size()));
+                    ring.put(batch.toArray(new Token[batch.size()]));
+                }
+            }
+        });
+    }
+
+    private void scan(Output out) {
+        List<Chunk> chunks = split();
+        int line = numberLines(chunks);
+
+        // Only a few chunks are scanned ahead of the one being written,
+        // the tokens of a finished chunk stay in memory until then.
+        int window = pool.getParallelism() * AHEAD;
+        List<Future<Void>> scans = new ArrayList<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            while (scans.size() < Math.min(chunks.size(), i + window)) {
+                Chunk ahead = chunks.get(scans.size());
+                // A chunk already taken in by a string needs no scan.
+                scans.add(ahead == null ? null : submit(ahead));
+            }
+
+            Chunk chunk = chunks.get(i);
+            await(scans.get(i));
+            scans.set(i, null);
+            write(chunk, out);
+            // The tokens are handed over, don't hold on to them.
+            chunks.set(i, null);
+
+            // Carry an unfinished string over into the chunks that follow.
+            while (chunk.openString >= 0) {
+                Chunk next = chunks.get(++i);
+                chunks.set(i, null);
+                if (i < scans.size()) scans.set(i, null);
+                Chunk rescan = new Chunk(chunk.openString, next.to);
+                scan(rescan, chunk.openStringLine);
+                write(rescan, out);
+                chunk = rescan;
+            }
+        }
+
+        List<Token> eof = new ArrayList<>();
+        eof.add(new Token(TokenType.EOF, "", null, line));
+        out.write(eof);
+    }
+
+    /**
+     * Works out the line every chunk starts on. The counting tasks are
+     * let go on return, they must not keep the chunks and their tokens.
+     * @return The line of the EOF token
+     */
+    private int numberLines(List<Chunk> chunks) {
+        List<Callable<Void>> counts = new ArrayList<>();
+        for (final Chunk chunk : chunks) {
+            counts.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    int newlines = 0;
+                    for (int i = chunk.from; i < chunk.to; i++) {
+                        if (source.charAt(i) == '\n') newlines++;
+                    }
+                    chunk.newlines = newlines;
+                    return null;
+                }
+            });
+        }
+        runAll(counts);
+
+        int line = 1;
+        for (Chunk chunk : chunks) {
+            chunk.line = line;
+            line += chunk.newlines;
+        }
+        return line;
+    }
+
+    private Future<Void> submit(final Chunk chunk) {
+        return pool.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                scan(chunk, chunk.line);
+                return null;
+            }
+        });
+    }
+
+    private static void write(Chunk chunk, Output out) {
+        for (Scanner.ScanError error : chunk.errors) {
+            Vapor.error(error.line, error.message);
+        }
+        out.write(chunk.tokens);
+    }
+
+    /**
+     * Cuts the source into chunks of about {@link #chunkSize} characters,
+     * each ending with a newline except the last one.
+     */
+    private List<Chunk> split() {
+        List<Chunk> chunks = new ArrayList<>();
+        int from = 0;
+        while (from < source.length()) {
+            int to = source.indexOf('\n', Math.min(from + chunkSize, source.length()) - 1);
+            to = to < 0 ? source.length() : to + 1;
+            chunks.add(new Chunk(from, to));
+            from = to;
+        }
+        return chunks;
+    }
+
+    private void scan(Chunk chunk, int line) {
+        chunk.errors = new ArrayList<>();
+        Scanner scanner = new Scanner(source, chunk.from, chunk.to, line, chunk.errors);
+        chunk.tokens = scanner.scanChunk();
+        chunk.openString = scanner.openString();
+        chunk.openStringLine = scanner.openStringLine();
+    }
+
+    private static void runAll(List<Callable<Void>> tasks) {
+        for (Future<Void> future : pool.invokeAll(tasks)) {
+            await(future);
+        }
+    }
+
+    private static void await(Future<Void> future) {
+        try {
+            future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Scanning was interrupted.", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Scanning failed.", ex.getCause());
+        }
+    }
+}
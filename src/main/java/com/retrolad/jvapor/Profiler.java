@@ -0,0 +1,169 @@
+package com.retrolad.jvapor;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Opt-in profiler for evaluation over {@link Expr} trees.
+ *
+ * <p>An evaluator calls {@link #enter(Expr)} before it evaluates a node and
+ * {@link #exit(Expr)} right after. For each node the profiler counts the
+ * invocations and measures the time spent in it, both including
+ * (total) and excluding (self) its subexpressions.
+ *
+ * <p>Nodes are attributed to a source line through their operator
+ * {@link Token}. Literals and groupings carry no token, so they take
+ * the line of the nearest enclosing node that does. Such a line is only
+ * a guess, the expression may continue on another line, and it is shown
+ * with a '~' in front.
+ */
+class Profiler {
+    /**
+     * Statistics collected for a single node
+     */
+    private static class Entry {
+        final Expr expr;
+        final Entry parent;
+        final int line;
+        // The line was taken from an enclosing node
+        final boolean approximate;
+        long count = 0;
+        long totalNanos = 0;
+        long selfNanos = 0;
+
+        Entry(Expr expr, Entry parent) {
+            this.expr = expr;
+            this.parent = parent;
+
+            Token token = operator(expr);
+            this.line = token != null ? token.line : parent != null ? parent.line : 0;
+            this.approximate = token == null;
+        }
+
+        String line() {
+            return approximate ? "~" + line : Integer.toString(line);
+        }
+    }
+
+    /**
+     * A node that is being evaluated right now
+     */
+    private static class Frame {
+        final Entry entry;
+        final long start;
+        long childNanos = 0;
+
+        Frame(Entry entry, long start) {
+            this.entry = entry;
+            this.start = start;
+        }
+    }
+
+    // Nodes are compared by identity: two equal literals are still two nodes.
+    private final Map<Expr, Entry> entries = new IdentityHashMap<>();
+    private final Deque<Frame> stack = new ArrayDeque<>();
+
+    void enter(Expr expr) {
+        Entry entry = entries.get(expr);
+        if (entry == null) {
+            Entry parent = stack.isEmpty() ? null : stack.peek().entry;
+            entry = new Entry(expr, parent);
+            entries.put(expr, entry);
+        }
+        entry.count++;
+        stack.push(new Frame(entry, System.nanoTime()));
+    }
+
+    void exit(Expr expr) {
+        Frame frame = stack.pop();
+        if (frame.entry.expr != expr) {
+            throw new IllegalStateException("Unbalanced profiler exit.");
+        }
+
+        long elapsed = System.nanoTime() - frame.start;
+        frame.entry.totalNanos += elapsed;
+        frame.entry.selfNanos += elapsed - frame.childNanos;
+        if (!stack.isEmpty()) stack.peek().childNanos += elapsed;
+    }
+
+    /**
+     * Prints the profiled nodes, the most expensive first.
+     * @param out Stream to print to
+     */
+    void report(PrintStream out) {
+        List<Entry> sorted = new ArrayList<>(entries.values());
+        Collections.sort(sorted, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return Long.compare(b.totalNanos, a.totalNanos);
+            }
+        });
+
+        out.println(String.format("%6s %10s %12s %12s  %s",
+                "line", "count", "total(us)", "self(us)", "node"));
+        for (Entry entry : sorted) {
+            out.println(String.format("%6s %10d %12.1f %12.1f  %s",
+                    entry.line(), entry.count,
+                    entry.totalNanos / 1000.0, entry.selfNanos / 1000.0,
+                    label(entry.expr)));
+        }
+    }
+
+    /**
+     * Writes the profile in the collapsed stack format understood by
+     * flame graph tools: one line per node with its frames from the root
+     * separated by ';', followed by its self time in microseconds.
+     * @param out Writer to write to
+     * @throws IOException
+     */
+    void writeCollapsed(Writer out) throws IOException {
+        for (Entry entry : entries.values()) {
+            long micros = entry.selfNanos / 1000;
+            if (micros == 0) continue;
+
+            // Collected from the leaf up, written from the root down.
+            List<Entry> frames = new ArrayList<>();
+            for (Entry frame = entry; frame != null; frame = frame.parent) {
+                frames.add(frame);
+            }
+
+            StringBuilder path = new StringBuilder();
+            for (int i = frames.size() - 1; i >= 0; i--) {
+                Entry frame = frames.get(i);
+                path.append(label(frame.expr)).append(" :").append(frame.line());
+                if (i > 0) path.append(';');
+            }
+            out.write(path.append(' ').append(micros).append('\n').toString());
+        }
+        out.flush();
+    }
+
+    private static Token operator(Expr expr) {
+        if (expr instanceof Expr.Binary) return ((Expr.Binary) expr).operator;
+        if (expr instanceof Expr.Unary) return ((Expr.Unary) expr).operator;
+        return null;
+    }
+
+    /**
+     * Short name of a node. Semicolons are reserved by the collapsed
+     * format, so they never appear here.
+     */
+    private static String label(Expr expr) {
+        if (expr instanceof Expr.Binary) return "binary " + ((Expr.Binary) expr).operator.lexeme;
+        if (expr instanceof Expr.Unary) return "unary " + ((Expr.Unary) expr).operator.lexeme;
+        if (expr instanceof Expr.Grouping) return "group";
+
+        Object value = ((Expr.Literal) expr).value;
+        if (value == null) return "literal nil";
+        return "literal " + value.toString().replace(';', ',').replace('\n', ' ');
+    }
+}
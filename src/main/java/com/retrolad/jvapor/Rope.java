@@ -0,0 +1,192 @@
+package com.retrolad.jvapor;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A string built by concatenation that is not copied until it's needed.
+ *
+ * <p>A rope is a binary tree whose leaves are {@link String}s. Joining two
+ * strings makes a new node in O(log n) instead of copying both of them, so
+ * a chain like {@code "a" + "b" + "c" + ...} stays linear. The characters
+ * are put together by {@link #toString()} only, which happens when the
+ * value is printed or compared. The result is kept and the children are
+ * let go, from then on the rope acts as a leaf.
+ *
+ * <p>The tree is kept balanced the way an AVL tree is: the heights of the
+ * two children of a node never differ by more than one, so a long chain of
+ * concatenations does not turn into a deep list.
+ */
+final class Rope implements CharSequence {
+    // Strings up to this length are copied rather than joined.
+    private static final int LEAF = 64;
+
+    // Both children are dropped once the rope is flattened
+    private CharSequence left;
+    private CharSequence right;
+    private final int length;
+    private final int height;
+    // The flattened string, once something asked for it
+    private String flat;
+
+    private Rope(CharSequence left, CharSequence right) {
+        this.left = left;
+        this.right = right;
+        this.length = left.length() + right.length();
+        this.height = Math.max(height(left), height(right)) + 1;
+    }
+
+    /**
+     * Joins two strings or ropes.
+     * @return A {@link String} if the result is short, a rope otherwise
+     */
+    static CharSequence concat(CharSequence a, CharSequence b) {
+        if (a.length() == 0) return b;
+        if (b.length() == 0) return a;
+        if (a.length() + b.length() <= LEAF) return a.toString() + b;
+
+        // Appending a short string to a rope that ends with one,
+        // merge them so the leaves don't get too small.
+        if (a instanceof Rope && b.length() < LEAF) {
+            Rope rope = (Rope) a;
+            if (rope.flat == null && rope.right instanceof String
+                    && rope.right.length() + b.length() <= LEAF) {
+                return join(rope.left, rope.right + b.toString());
+            }
+        }
+
+        return join(a, b);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) throw new IndexOutOfBoundsException("Index: " + index);
+
+        CharSequence node = this;
+        while (node instanceof Rope) {
+            Rope rope = (Rope) node;
+            if (rope.flat != null) return rope.flat.charAt(index);
+
+            int leftLength = rope.left.length();
+            if (index < leftLength) {
+                node = rope.left;
+            } else {
+                node = rope.right;
+                index -= leftLength;
+            }
+        }
+        return node.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    /**
+     * Copies the leaves into one string. Walks the tree with an explicit
+     * stack, so no rope is too deep to print.
+     */
+    @Override
+    public String toString() {
+        if (flat != null) return flat;
+
+        StringBuilder builder = new StringBuilder(length);
+        Deque<CharSequence> stack = new ArrayDeque<>();
+        stack.push(this);
+        while (!stack.isEmpty()) {
+            CharSequence node = stack.pop();
+            if (node instanceof Rope && ((Rope) node).flat == null) {
+                stack.push(((Rope) node).right);
+                stack.push(((Rope) node).left);
+            } else {
+                builder.append(node.toString());
+            }
+        }
+
+        flat = builder.toString();
+        left = null;
+        right = null;
+        return flat;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!(other instanceof Rope)) return false;
+        return length == ((Rope) other).length && toString().equals(other.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    /**
+     * @return Height of the tree, 0 once the rope is flattened
+     */
+    int height() {
+        return height(this);
+    }
+
+    /**
+     * Height of a tree, a flattened rope counts as a leaf.
+     */
+    private static int height(CharSequence node) {
+        if (!(node instanceof Rope)) return 0;
+        Rope rope = (Rope) node;
+        return rope.flat == null ? rope.height : 0;
+    }
+
+    /**
+     * Joins two balanced trees into a balanced tree. The shorter one is
+     * hung on the side of the taller one where the heights match, and the
+     * nodes on the way back up are rotated where they lean too much.
+     */
+    private static CharSequence join(CharSequence a, CharSequence b) {
+        int ha = height(a);
+        int hb = height(b);
+
+        if (ha > hb + 1) {
+            Rope rope = (Rope) a;
+            return balance(rope.left, join(rope.right, b));
+        }
+        if (hb > ha + 1) {
+            Rope rope = (Rope) b;
+            return balance(join(a, rope.left), rope.right);
+        }
+        return new Rope(a, b);
+    }
+
+    /**
+     * Makes a node out of two trees whose heights differ by at most two,
+     * rotating if they differ by exactly two.
+     */
+    private static Rope balance(CharSequence a, CharSequence b) {
+        int ha = height(a);
+        int hb = height(b);
+
+        if (ha > hb + 1) {
+            Rope rope = (Rope) a;
+            if (height(rope.left) >= height(rope.right)) {
+                return new Rope(rope.left, new Rope(rope.right, b));
+            }
+            Rope inner = (Rope) rope.right;
+            return new Rope(new Rope(rope.left, inner.left), new Rope(inner.right, b));
+        }
+        if (hb > ha + 1) {
+            Rope rope = (Rope) b;
+            if (height(rope.right) >= height(rope.left)) {
+                return new Rope(new Rope(a, rope.left), rope.right);
+            }
+            Rope inner = (Rope) rope.left;
+            return new Rope(new Rope(a, inner.left), new Rope(inner.right, rope.right));
+        }
+        return new Rope(a, b);
+    }
+}
@@ -0,0 +1,16 @@
+package com.retrolad.jvapor;
+
+/**
+ * Error raised while evaluating an expression. It tracks the
+ * token that identifies where in the code the error came from.
+ */
+class RuntimeError extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    final Token token;
+
+    RuntimeError(Token token, String message) {
+        super(message);
+        this.token = token;
+    }
+}
@@ -16,6 +16,13 @@ class Scanner {
     private int current = 0;
     // tracks what source line current is on, so we can produce tokens that know their location
     private int line = 1;
+    // index just past the last character to scan
+    private final int end;
+    // errors held back while scanning a chunk, null when they are reported right away
+    private final List<ScanError> errors;
+    // start and line of a string that runs past the end of the chunk, -1 if there is none
+    private int openString = -1;
+    private int openStringLine = 0;
     // Set of reversed words in a map
     private static final Map<String, TokenType> keywords;
 
@@ -39,8 +46,37 @@ class Scanner {
         keywords.put("while",  TokenType.WHILE);
     }
 
+    /**
+     * Error found while scanning a chunk, reported once chunks are stitched
+     * together.
+     */
+    static class ScanError {
+        final int line;
+        final String message;
+
+        ScanError(int line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+    }
+
     Scanner(String source) {
+        this(source, 0, source.length(), 1, null);
+    }
+
+    /**
+     * Scanner for the part of the source between {@code from} and
+     * {@code to} that starts on the given line.
+     * @param errors List to collect errors in instead of reporting them,
+     * or {@code null}
+     */
+    Scanner(String source, int from, int to, int line, List<ScanError> errors) {
         this.source = source;
+        this.start = from;
+        this.current = from;
+        this.end = to;
+        this.line = line;
+        this.errors = errors;
     }
 
     List<Token> scanTokens() {
@@ -54,8 +90,60 @@ class Scanner {
         return tokens;
     }
 
+    /**
+     * Scans the source like {@link #scanTokens()}, but hands the tokens
+     * over to the ring in batches as soon as they are ready, so a parser
+     * can consume them on another thread while scanning goes on.
+     * @param ring Ring to publish batches to
+     * @param batchSize Number of tokens in a batch
+     */
+    void scanTokens(TokenRing ring, int batchSize) {
+        while(!isAtEnd()) {
+            start = current;
+            scanToken();
+            if (tokens.size() >= batchSize) publish(ring);
+        }
+
+        tokens.add(new Token(TokenType.EOF, "", null, line));
+        publish(ring);
+    }
+
+    private void publish(TokenRing ring) {
+        Token[] batch = tokens.toArray(new Token[tokens.size()]);
+        tokens.clear();
+        ring.put(batch);
+    }
+
+    /**
+     * Scans the part of the source given to the constructor, without
+     * adding the EOF token.
+     */
+    List<Token> scanChunk() {
+        while(!isAtEnd()) {
+            start = current;
+            scanToken();
+        }
+
+        return tokens;
+    }
+
+    /**
+     * @return Index of the quote of a string that didn't end in this chunk,
+     * or -1 if every string did
+     */
+    int openString() {
+        return openString;
+    }
+
+    /**
+     * @return Line the string returned by {@link #openString()} starts on
+     */
+    int openStringLine() {
+        return openStringLine;
+    }
+
     private boolean isAtEnd() {
-        return current >= source.length();
+        return current >= end;
     }
 
     /**
@@ -115,7 +203,7 @@ class Scanner {
                     identifier();
                 } 
                 else {
-                    Vapor.error(line, "Unexpected character.");
+                    error(line, "Unexpected character.");
                 }
             break;    
         }
@@ -173,13 +261,20 @@ class Scanner {
      * Vapor supports multi-line characters.
      */
     private void string() {
+        int startLine = line;
         while (peek() != '"' && !isAtEnd()) {
             if(peek() == '\n') line++;
             advance();
         }
 
         if (isAtEnd()) {
-            Vapor.error(line, "Unterminated string");
+            if (end < source.length()) {
+                // The string may go on in the next chunk.
+                openString = start;
+                openStringLine = startLine;
+                return;
+            }
+            error(line, "Unterminated string");
             return;
         }
 
@@ -237,10 +332,18 @@ class Scanner {
      * Look at the next unconsumed character
      */
     private char peekNext() {
-        if (current + 1 >= source.length()) return '\0';
+        if (current + 1 >= end) return '\0';
         return source.charAt(current + 1);
     }
 
+    private void error(int line, String message) {
+        if (errors == null) {
+            Vapor.error(line, message);
+        } else {
+            errors.add(new ScanError(line, message));
+        }
+    }
+
     /**
      * Check if char is an alphabet character or an underscore. 
      * @param c Char to check
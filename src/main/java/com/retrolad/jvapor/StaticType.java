@@ -0,0 +1,12 @@
+package com.retrolad.jvapor;
+
+/**
+ * Types the {@link TypeInference} pass can prove about an expression.
+ * {@link #UNKNOWN} sits above all the others: the expression may
+ * evaluate to a value of any type, or fail.
+ */
+enum StaticType {
+    NUMBER, STRING, BOOLEAN, NIL,
+
+    UNKNOWN
+}
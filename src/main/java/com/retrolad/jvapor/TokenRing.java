@@ -0,0 +1,89 @@
+package com.retrolad.jvapor;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded single-producer/single-consumer queue of token batches.
+ *
+ * <p>The scanner thread puts batches in and the parser thread takes them
+ * out. Neither side ever takes a lock: each index is written by one thread
+ * only and published to the other with an ordered store, so a slot is
+ * always filled before the other side can see it.
+ */
+class TokenRing {
+    private final Token[][] slots;
+    private final int mask;
+    // Next slot to take, written by the consumer only
+    private final AtomicLong head = new AtomicLong();
+    // Next slot to put, written by the producer only
+    private final AtomicLong tail = new AtomicLong();
+    // Last head seen by the producer, saves a volatile read per batch
+    private long cachedHead = 0;
+    // Last tail seen by the consumer
+    private long cachedTail = 0;
+
+    private volatile Throwable failure;
+
+    /**
+     * @param capacity Maximum number of batches in flight, a power of two
+     */
+    TokenRing(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("Capacity must be a power of two.");
+        }
+        this.slots = new Token[capacity][];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Publishes a batch, waiting while the ring is full.
+     * Called by the producer only.
+     */
+    void put(Token[] batch) {
+        long t = tail.get();
+        while (t - cachedHead == slots.length) {
+            cachedHead = head.get();
+            if (t - cachedHead == slots.length) Thread.yield();
+        }
+
+        slots[(int) t & mask] = batch;
+        tail.lazySet(t + 1);
+    }
+
+    /**
+     * Takes the next batch, waiting while the ring is empty.
+     * Called by the consumer only.
+     * @return The batch, or {@code null} if the producer failed
+     * and no more batches will come
+     */
+    Token[] take() {
+        long h = head.get();
+        while (h == cachedTail) {
+            cachedTail = tail.get();
+            if (h != cachedTail) break;
+            if (failure != null) return null;
+            Thread.yield();
+        }
+
+        int index = (int) h & mask;
+        Token[] batch = slots[index];
+        slots[index] = null;
+        head.lazySet(h + 1);
+        return batch;
+    }
+
+    /**
+     * Tells the consumer that no more batches will come because the
+     * producer failed.
+     */
+    void fail(Throwable cause) {
+        failure = cause;
+    }
+
+    /**
+     * @return What made the producer fail, or {@code null}
+     */
+    Throwable failure() {
+        return failure;
+    }
+}
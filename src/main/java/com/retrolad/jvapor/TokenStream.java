@@ -0,0 +1,66 @@
+package com.retrolad.jvapor;
+
+import java.util.AbstractList;
+
+/**
+ * Read-only view of the tokens coming out of a {@link TokenRing}, so that
+ * the {@link Parser} can consume them while they are still being scanned.
+ *
+ * <p>Only the two most recent batches are kept, which is enough for the
+ * parser that looks at the current and the previous token only. Until the
+ * EOF token arrives the size is unknown and reported as
+ * {@link Integer#MAX_VALUE}. If the scanner fails, the stream just ends
+ * and the failure is left to the owner of the ring.
+ */
+class TokenStream extends AbstractList<Token> {
+    private final TokenRing ring;
+
+    private Token[] previous = new Token[0];
+    private int previousStart = 0;
+    private Token[] batch = new Token[0];
+    private int batchStart = 0;
+    private int size = Integer.MAX_VALUE;
+
+    TokenStream(TokenRing ring) {
+        this.ring = ring;
+    }
+
+    @Override
+    public Token get(int index) {
+        while (index >= batchStart + batch.length) {
+            if (index >= size) throw new IndexOutOfBoundsException("Index: " + index);
+            pull();
+        }
+
+        if (index >= batchStart) return batch[index - batchStart];
+        if (index >= previousStart) return previous[index - previousStart];
+        throw new IndexOutOfBoundsException("Token " + index + " was already released.");
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Reads and drops the tokens up to the end, so that the scanner gets
+     * to finish and report every error.
+     */
+    void drain() {
+        while (size == Integer.MAX_VALUE) pull();
+    }
+
+    private void pull() {
+        previous = batch;
+        previousStart = batchStart;
+        batchStart += batch.length;
+        batch = ring.take();
+
+        if (batch == null) {
+            batch = new Token[0];
+            size = batchStart;
+        } else if (batch[batch.length - 1].type == TokenType.EOF) {
+            size = batchStart + batch.length;
+        }
+    }
+}
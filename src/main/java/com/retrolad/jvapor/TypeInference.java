@@ -0,0 +1,156 @@
+package com.retrolad.jvapor;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Works out the type of every expression before it runs.
+ *
+ * <p>Types flow up from the literals through the operators. Where an
+ * operator is given an operand that is sure to be of the wrong type, the
+ * error is reported right away with the operator token, and the result
+ * becomes {@link StaticType#UNKNOWN} so the same mistake isn't reported
+ * again further up.
+ *
+ * <p>A subtree whose every node has a known type is fully typed. It can't
+ * fail at runtime, so a backend doesn't have to check the types of its
+ * operands.
+ */
+class TypeInference implements Expr.Visitor<StaticType> {
+    private final Map<Expr, StaticType> types = new IdentityHashMap<>();
+    private final Set<Expr> typed = Collections.newSetFromMap(new IdentityHashMap<Expr, Boolean>());
+
+    StaticType infer(Expr expr) {
+        StaticType type = expr.accept(this);
+        types.put(expr, type);
+        return type;
+    }
+
+    /**
+     * @return The type found for the expression, {@link StaticType#UNKNOWN}
+     * if it wasn't inferred
+     */
+    StaticType typeOf(Expr expr) {
+        StaticType type = types.get(expr);
+        return type == null ? StaticType.UNKNOWN : type;
+    }
+
+    /**
+     * @return {@code true} if the types of the expression and all of
+     * its subexpressions are known
+     */
+    boolean isFullyTyped(Expr expr) {
+        return typed.contains(expr);
+    }
+
+    @Override
+    public StaticType visitBinaryExpr(Expr.Binary expr) {
+        StaticType left = infer(expr.left);
+        StaticType right = infer(expr.right);
+        StaticType type = binary(expr.operator, left, right);
+
+        if (type != StaticType.UNKNOWN && isFullyTyped(expr.left) && isFullyTyped(expr.right)) {
+            typed.add(expr);
+        }
+        return type;
+    }
+
+    @Override
+    public StaticType visitGroupingExpr(Expr.Grouping expr) {
+        StaticType type = infer(expr.expression);
+        if (isFullyTyped(expr.expression)) typed.add(expr);
+        return type;
+    }
+
+    @Override
+    public StaticType visitLiteralExpr(Expr.Literal expr) {
+        StaticType type;
+        if (expr.value == null) {
+            type = StaticType.NIL;
+        } else if (expr.value instanceof Double) {
+            type = StaticType.NUMBER;
+        } else if (expr.value instanceof String) {
+            type = StaticType.STRING;
+        } else if (expr.value instanceof Boolean) {
+            type = StaticType.BOOLEAN;
+        } else {
+            return StaticType.UNKNOWN;
+        }
+
+        typed.add(expr);
+        return type;
+    }
+
+    @Override
+    public StaticType visitUnaryExpr(Expr.Unary expr) {
+        StaticType right = infer(expr.right);
+        StaticType type;
+        if (expr.operator.type == TokenType.BANG) {
+            // Any value can be negated, it's either truthy or falsey.
+            type = StaticType.BOOLEAN;
+        } else if (isKnown(right) && right != StaticType.NUMBER) {
+            Vapor.error(expr.operator, "Operand must be a number.");
+            type = StaticType.UNKNOWN;
+        } else {
+            type = StaticType.NUMBER;
+        }
+
+        if (type != StaticType.UNKNOWN && isFullyTyped(expr.right)) typed.add(expr);
+        return type;
+    }
+
+    private StaticType binary(Token operator, StaticType left, StaticType right) {
+        switch (operator.type) {
+            case EQUAL_EQUAL:
+            case BANG_EQUAL:
+                return StaticType.BOOLEAN;
+            case PLUS:
+                return plus(operator, left, right);
+            case MINUS:
+            case STAR:
+            case SLASH:
+                return numbers(operator, left, right) ? StaticType.NUMBER : StaticType.UNKNOWN;
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+                return numbers(operator, left, right) ? StaticType.BOOLEAN : StaticType.UNKNOWN;
+            default:
+                return StaticType.UNKNOWN;
+        }
+    }
+
+    /**
+     * '+' adds two numbers or joins two strings, so one known operand
+     * is enough to tell what the result is.
+     */
+    private StaticType plus(Token operator, StaticType left, StaticType right) {
+        boolean valid = isAddable(left) && isAddable(right)
+                && (!isKnown(left) || !isKnown(right) || left == right);
+        if (!valid) {
+            Vapor.error(operator, "Operands must be two numbers or two strings.");
+            return StaticType.UNKNOWN;
+        }
+
+        return isKnown(left) ? left : right;
+    }
+
+    private boolean numbers(Token operator, StaticType left, StaticType right) {
+        if ((isKnown(left) && left != StaticType.NUMBER) ||
+            (isKnown(right) && right != StaticType.NUMBER)) {
+            Vapor.error(operator, "Operands must be numbers.");
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean isAddable(StaticType type) {
+        return type == StaticType.NUMBER || type == StaticType.STRING || type == StaticType.UNKNOWN;
+    }
+
+    private static boolean isKnown(StaticType type) {
+        return type != StaticType.UNKNOWN;
+    }
+}
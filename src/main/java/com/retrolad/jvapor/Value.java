@@ -0,0 +1,185 @@
+package com.retrolad.jvapor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runtime representation of Vapor values packed into a primitive {@code long}.
+ *
+ * <p>Every double is stored as its raw IEEE 754 bits. A double whose exponent
+ * bits are all set and whose quiet bit is set is a NaN, and the remaining
+ * mantissa bits of such a NaN are never produced by arithmetic. We use that
+ * unused space to encode the other kinds of values:
+ *
+ * <pre>
+ *   number     any bit pattern that is not a tagged NaN
+ *   nil        QNAN | 1
+ *   false      QNAN | 2
+ *   true       QNAN | 3
+ *   reference  SIGN | QNAN | index into a {@link Heap}
+ * </pre>
+ *
+ * <p>Java has no pointers, so strings and other objects live in a side table
+ * ({@link Heap}) and the value only carries their index. With this encoding
+ * value stacks and locals can be plain {@code long[]} and arithmetic does not
+ * allocate.
+ */
+final class Value {
+    private static final long SIGN_BIT = 0x8000000000000000L;
+    private static final long QNAN     = 0x7ffc000000000000L;
+
+    private static final long TAG_NIL   = 1;
+    private static final long TAG_FALSE = 2;
+    private static final long TAG_TRUE  = 3;
+
+    static final long NIL   = QNAN | TAG_NIL;
+    static final long FALSE = QNAN | TAG_FALSE;
+    static final long TRUE  = QNAN | TAG_TRUE;
+
+    /**
+     * The only NaN arithmetic is allowed to leave in a value. Any other NaN
+     * is folded into it so it can't be mistaken for a tagged value.
+     */
+    private static final long CANONICAL_NAN = 0x7ff8000000000000L;
+
+    private Value() { }
+
+    static long number(double value) {
+        if (value != value) return CANONICAL_NAN;
+        return Double.doubleToRawLongBits(value);
+    }
+
+    static long bool(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    static long ref(int index) {
+        return SIGN_BIT | QNAN | index;
+    }
+
+    static boolean isNumber(long value) {
+        return (value & QNAN) != QNAN;
+    }
+
+    static boolean isNil(long value) {
+        return value == NIL;
+    }
+
+    static boolean isBool(long value) {
+        return (value | 1) == TRUE;
+    }
+
+    static boolean isRef(long value) {
+        return (value & (SIGN_BIT | QNAN)) == (SIGN_BIT | QNAN);
+    }
+
+    static double asNumber(long value) {
+        return Double.longBitsToDouble(value);
+    }
+
+    static boolean asBool(long value) {
+        return value == TRUE;
+    }
+
+    static int asRef(long value) {
+        return (int) (value & ~(SIGN_BIT | QNAN));
+    }
+
+    /**
+     * Vapor follows Ruby's rule: {@code false} and {@code nil} are falsey
+     * and everything else is truthy.
+     */
+    static boolean isTruthy(long value) {
+        return value != NIL && value != FALSE;
+    }
+
+    /**
+     * Side table that holds the objects referenced by values.
+     *
+     * <p>Strings are interned, so two equal strings always get the same
+     * index and can be compared by their bits. Results of concatenation
+     * are kept as {@link Rope}s and are not interned.
+     */
+    static final class Heap {
+        private final List<Object> objects = new ArrayList<>();
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        /**
+         * Packs any Java object the front end produces ({@code null},
+         * {@link Boolean}, {@link Double}, {@link String}) into a value.
+         */
+        long box(Object object) {
+            if (object == null) return NIL;
+            if (object instanceof Boolean) return bool((Boolean) object);
+            if (object instanceof Double) return number((Double) object);
+            if (object instanceof String) return string((String) object);
+            return add(object);
+        }
+
+        long string(String string) {
+            Integer index = strings.get(string);
+            if (index != null) return ref(index);
+
+            long value = add(string);
+            strings.put(string, asRef(value));
+            return value;
+        }
+
+        /**
+         * Concatenates two string values without copying them.
+         *
+         * <p>Every result is kept here until the heap goes away, including
+         * the ropes a long chain passes through on its way. Joining copies
+         * the O(log n) nodes on one side of the tree, so a chain of n
+         * concatenations holds on to O(n log n) nodes rather than O(n),
+         * which is still far less than the O(n^2) characters copying the
+         * strings would take.
+         */
+        long concat(long a, long b) {
+            CharSequence result = Rope.concat((CharSequence) get(a), (CharSequence) get(b));
+            if (result instanceof String) return string((String) result);
+            return add(result);
+        }
+
+        Object get(long value) {
+            return objects.get(asRef(value));
+        }
+
+        boolean isString(long value) {
+            if (!isRef(value)) return false;
+            Object object = objects.get(asRef(value));
+            return object instanceof String || object instanceof Rope;
+        }
+
+        boolean isEqual(long a, long b) {
+            // Numbers are compared by IEEE rules on purpose, so 'nan == nan'
+            // is false even though every NaN has the same canonical bits.
+            if (isNumber(a) && isNumber(b)) return asNumber(a) == asNumber(b);
+            if (a == b) return true;
+            if (isString(a) && isString(b)) return get(a).toString().equals(get(b).toString());
+            if (isRef(a) && isRef(b)) return get(a).equals(get(b));
+            return false;
+        }
+
+        String stringify(long value) {
+            if (isNil(value)) return "nil";
+            if (isBool(value)) return asBool(value) ? "true" : "false";
+            if (isNumber(value)) {
+                String text = Double.toString(asNumber(value));
+                // Integers are printed without the trailing ".0".
+                if (text.endsWith(".0")) {
+                    text = text.substring(0, text.length() - 2);
+                }
+                return text;
+            }
+            return get(value).toString();
+        }
+
+        private long add(Object object) {
+            objects.add(object);
+            return ref(objects.size() - 1);
+        }
+    }
+}
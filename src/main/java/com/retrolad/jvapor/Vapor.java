@@ -1,8 +1,10 @@
 package com.retrolad.jvapor;
 
 import java.io.BufferedReader;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Writer;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -10,7 +12,19 @@ import java.util.List;
 
 public class Vapor {
     // Ensure we don't try to execute code that has a known error.
-    static boolean hadError = false;
+    static volatile boolean hadError = false;
+    // Set when evaluation fails.
+    static boolean hadRuntimeError = false;
+    // Sources at least this long are scanned and parsed at the same time.
+    private static final int PIPELINE_THRESHOLD = 1 << 20;
+    // Number of tokens the scanner hands over to the parser at once
+    private static final int PIPELINE_BATCH = 1024;
+    // Number of batches that may wait for the parser
+    private static final int PIPELINE_CAPACITY = 64;
+    // Stack of the thread pipelined sources run on. Their trees are often
+    // nested far deeper than the default stack allows, deeper still they
+    // are reported as an error.
+    private static final long PIPELINE_STACK = 512L << 20;
 
     public static void main(String[] args) throws IOException {
         if (args.length > 1) {
@@ -31,6 +45,10 @@ public class Vapor {
     private static void runFile(String path) throws IOException {
         byte[] bytes = Files.readAllBytes(Paths.get(path));
         run(new String(bytes, Charset.defaultCharset()));
+
+        // Indicate an error in the exit code.
+        if (hadError) System.exit(65);
+        if (hadRuntimeError) System.exit(70);
     }
 
     /**
@@ -46,11 +64,23 @@ public class Vapor {
             String line = reader.readLine();
             if (line == null) break;
             run(line);
+            // A mistake in one line shouldn't stop the next one from running.
+            hadError = false;
         }
     }
 
-    private static void run(String source) {
-        Scanner scanner = new Scanner(source);
+    static void run(final String source) {
+        if (source.length() >= PIPELINE_THRESHOLD) {
+            runWithStack(PIPELINE_STACK, new Runnable() {
+                @Override
+                public void run() {
+                    runPipelined(source);
+                }
+            });
+            return;
+        }
+
+        ParallelScanner scanner = new ParallelScanner(source);
         List<Token> tokens = scanner.scanTokens();
 
         // For now, just print tokens.
@@ -62,6 +92,140 @@ public class Vapor {
         Expr expression = parser.parse();
 
         System.out.println(new AstPrinter().print(expression));
+
+        check(expression);
+    }
+
+    /**
+     * Scan on a separate thread while parsing on this one, so the total
+     * time tends to the longer of the two phases instead of their sum.
+     * The scanning thread splits the work further with a
+     * {@link ParallelScanner} and hands chunks over in source order.
+     * Neither the tokens nor the tree are printed, there is too much of
+     * them to be useful.
+     * @param source Source code
+     */
+    static void runPipelined(final String source) {
+        final TokenRing ring = new TokenRing(PIPELINE_CAPACITY);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    new ParallelScanner(source).scanTokens(ring, PIPELINE_BATCH);
+                } catch (Throwable t) {
+                    ring.fail(t);
+                }
+            }
+        }, "jvapor-scanner");
+        producer.setDaemon(true);
+        producer.start();
+
+        TokenStream tokens = new TokenStream(ring);
+        Parser parser = new Parser(tokens);
+        Expr expression = null;
+        try {
+            expression = parser.parse();
+        } catch (StackOverflowError error) {
+            tooDeep();
+        }
+        // The parser may stop before the end, the errors past it count too.
+        tokens.drain();
+        join(producer);
+
+        if (ring.failure() != null) {
+            throw new IllegalStateException("Scanner failed.", ring.failure());
+        }
+
+        check(expression);
+    }
+
+    /**
+     * Infers the types of a parsed expression and, if no error turned
+     * up, evaluates it.
+     * @param expression Expression to check, {@code null} if parsing failed
+     */
+    private static void check(Expr expression) {
+        // A tree rebuilt after a syntax error would only add misleading type errors.
+        if (hadError) return;
+
+        try {
+            TypeInference types = new TypeInference();
+            types.infer(expression);
+
+            if (hadError) return;
+            interpret(expression, types);
+        } catch (StackOverflowError error) {
+            tooDeep();
+        }
+    }
+
+    /**
+     * Runs the task on a thread with the given stack size and waits for
+     * it, passing on whatever the task throws.
+     * @param stackSize Stack size in bytes
+     * @param task Task to run
+     */
+    private static void runWithStack(long stackSize, final Runnable task) {
+        final Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread(null, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    failure[0] = t;
+                }
+            }
+        }, "jvapor-pipeline", stackSize);
+        thread.start();
+        join(thread);
+
+        if (failure[0] instanceof RuntimeException) throw (RuntimeException) failure[0];
+        if (failure[0] instanceof Error) throw (Error) failure[0];
+    }
+
+    private static void join(Thread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for " + thread.getName() + ".", ex);
+        }
+    }
+
+    /**
+     * Evaluate the expression and print its value.
+     *
+     * <p>Setting the {@code jvapor.profile} system property turns on the
+     * {@link Profiler}. With {@code report} a list of the hottest nodes is
+     * printed to stderr, any other value is a file to write collapsed
+     * stacks to.
+     * @param expression Expression to evaluate
+     * @param types Types inferred for the expression
+     */
+    private static void interpret(Expr expression, TypeInference types) {
+        String profile = System.getProperty("jvapor.profile");
+        Profiler profiler = profile == null ? null : new Profiler();
+
+        // Values only live as long as the run, and so does their heap.
+        Value.Heap heap = new Value.Heap();
+        Node program = new NodeBuilder(heap, profiler, types).build(expression);
+        try {
+            System.out.println(heap.stringify(program.execute(heap)));
+        } catch (RuntimeError error) {
+            runtimeError(error);
+        }
+
+        if (profiler == null) return;
+        if (profile.equals("report")) {
+            profiler.report(System.err);
+            return;
+        }
+        try (Writer out = new FileWriter(profile)) {
+            profiler.writeCollapsed(out);
+        } catch (IOException ex) {
+            System.err.println("Could not write profile: " + ex.getMessage());
+        }
     }
 
     /**
@@ -77,10 +241,24 @@ public class Vapor {
         if(token.type == TokenType.EOF) {
             report(token.line, " at end", message);
         } else {
-            report(token.line, " at '" + token.lexeme, message);
+            report(token.line, " at '" + token.lexeme + "'", message);
         }
     }
 
+    /**
+     * Tells the user the expression is nested deeper than the stack
+     * can take
+     */
+    private static void tooDeep() {
+        System.err.println("Error: Expression is nested too deeply.");
+        hadError = true;
+    }
+
+    static void runtimeError(RuntimeError error) {
+        System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
+        hadRuntimeError = true;
+    }
+
     private static void report(int line, String where, String message) {
         System.err.println("[line " + line + "] Error" + where + ": " + message);
         hadError = true;
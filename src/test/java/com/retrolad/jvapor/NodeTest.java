@@ -0,0 +1,191 @@
+package com.retrolad.jvapor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link Node}s rewrite themselves the way the operand types
+ * they see call for.
+ */
+public class NodeTest {
+    private final Value.Heap heap = new Value.Heap();
+
+    /**
+     * Yields its values one after another, so a node above it sees the
+     * operand type change between runs.
+     */
+    private static class Sequence extends Node {
+        private final long[] values;
+        private int next = 0;
+
+        Sequence(long... values) {
+            this.values = values;
+        }
+
+        @Override
+        long execute(Value.Heap heap) {
+            return values[next++];
+        }
+    }
+
+    private static Token token(TokenType type, String lexeme) {
+        return new Token(type, lexeme, null, 1);
+    }
+
+    private static Node number(double value) {
+        return new Node.Literal(Value.number(value));
+    }
+
+    @Test
+    public void uninitializedSpecializesToDoubleAdd() {
+        Node.Root root = new Node.Root(
+            new Node.Uninitialized(number(1), token(TokenType.PLUS, "+"), number(2)));
+
+        assertEquals(3.0, Value.asNumber(root.execute(heap)), 0);
+        assertTrue(root.body instanceof Node.DoubleAdd);
+        assertSame(root, root.body.parent);
+
+        // Running again keeps the specialized node.
+        Node specialized = root.body;
+        assertEquals(3.0, Value.asNumber(root.execute(heap)), 0);
+        assertSame(specialized, root.body);
+    }
+
+    @Test
+    public void uninitializedSpecializesToStringConcat() {
+        Node.Root root = new Node.Root(new Node.Uninitialized(
+            new Node.Literal(heap.string("a")), token(TokenType.PLUS, "+"),
+            new Node.Literal(heap.string("b"))));
+
+        assertEquals("ab", heap.stringify(root.execute(heap)));
+        assertTrue(root.body instanceof Node.StringConcat);
+    }
+
+    @Test
+    public void uninitializedComparisonSpecializes() {
+        Node.Root root = new Node.Root(
+            new Node.Uninitialized(number(1), token(TokenType.LESS, "<"), number(2)));
+
+        assertEquals(Value.TRUE, root.execute(heap));
+        assertTrue(root.body instanceof Node.DoubleLess);
+    }
+
+    @Test
+    public void doubleBinaryGeneralizesOnMismatch() {
+        Node.Root sum = new Node.Root(new Node.Uninitialized(
+            new Sequence(Value.number(1), heap.string("a")), token(TokenType.PLUS, "+"),
+            new Sequence(Value.number(2), heap.string("b"))));
+        assertEquals(3.0, Value.asNumber(sum.execute(heap)), 0);
+        assertTrue(sum.body instanceof Node.DoubleAdd);
+
+        assertEquals("ab", heap.stringify(sum.execute(heap)));
+        assertTrue(sum.body instanceof Node.Generic);
+        assertSame(sum, sum.body.parent);
+    }
+
+    @Test
+    public void stringConcatGeneralizesOnMismatch() {
+        Node.Root root = new Node.Root(new Node.Uninitialized(
+            new Sequence(heap.string("a"), Value.number(1)), token(TokenType.PLUS, "+"),
+            new Sequence(heap.string("b"), Value.number(2))));
+
+        assertEquals("ab", heap.stringify(root.execute(heap)));
+        assertTrue(root.body instanceof Node.StringConcat);
+
+        assertEquals(3.0, Value.asNumber(root.execute(heap)), 0);
+        assertTrue(root.body instanceof Node.Generic);
+    }
+
+    @Test
+    public void genericReportsTypeErrors() {
+        Node.Root root = new Node.Root(new Node.Uninitialized(
+            new Node.Literal(heap.string("a")), token(TokenType.MINUS, "-"), number(1)));
+
+        try {
+            root.execute(heap);
+        } catch (RuntimeError error) {
+            assertEquals("Operands must be numbers.", error.getMessage());
+            assertTrue(root.body instanceof Node.Generic);
+            return;
+        }
+        throw new AssertionError("Expected a runtime error.");
+    }
+
+    @Test
+    public void nestedNodeIsReplacedInItsBinaryParent() {
+        Node.Uninitialized inner =
+            new Node.Uninitialized(number(2), token(TokenType.STAR, "*"), number(3));
+        Node.Root root = new Node.Root(
+            new Node.Uninitialized(number(1), token(TokenType.PLUS, "+"), inner));
+
+        assertEquals(7.0, Value.asNumber(root.execute(heap)), 0);
+        Node.Binary outer = (Node.Binary) root.body;
+        assertTrue(outer instanceof Node.DoubleAdd);
+        assertTrue(outer.right instanceof Node.DoubleMultiply);
+        assertSame(outer, outer.right.parent);
+    }
+
+    @Test
+    public void fullyTypedExpressionsAreBuiltUnguarded() {
+        Expr sum = new Expr.Binary(
+            new Expr.Literal(1.0), token(TokenType.PLUS, "+"), new Expr.Literal(2.0));
+        Expr concat = new Expr.Binary(
+            new Expr.Literal("a"), token(TokenType.PLUS, "+"), new Expr.Literal("b"));
+        Expr equal = new Expr.Binary(sum, token(TokenType.EQUAL_EQUAL, "=="), new Expr.Literal(3.0));
+
+        TypeInference types = new TypeInference();
+        types.infer(equal);
+        types.infer(concat);
+        Node.Root numbers = new NodeBuilder(heap, null, types).build(equal);
+        Node.Root strings = new NodeBuilder(heap, null, types).build(concat);
+
+        Node.Binary root = (Node.Binary) numbers.body;
+        assertTrue(root instanceof Node.Generic);
+        assertTrue(root.left instanceof Node.ProvenDouble);
+        assertTrue(strings.body instanceof Node.ProvenConcat);
+
+        assertEquals(Value.TRUE, numbers.execute(heap));
+        assertEquals("ab", heap.stringify(strings.execute(heap)));
+    }
+
+    @Test
+    public void provenNodeKeepsRewrittenChildren() {
+        Node.Binary proven = Node.proven(
+            new Node.Uninitialized(number(1), token(TokenType.PLUS, "+"), number(2)),
+            token(TokenType.STAR, "*"), number(3), true, false);
+        Node.Root root = new Node.Root(proven);
+
+        assertTrue(proven instanceof Node.ProvenDouble);
+        assertSame(Node.DoubleOperation.MULTIPLY, ((Node.ProvenDouble) proven).operation);
+        assertEquals(9.0, Value.asNumber(root.execute(heap)), 0);
+        assertSame(proven, root.body);
+        assertTrue(proven.left instanceof Node.DoubleAdd);
+        assertSame(proven, proven.left.parent);
+    }
+
+    @Test
+    public void provenPicksTheNodeForTheOperator() {
+        Token plus = token(TokenType.PLUS, "+");
+        assertTrue(Node.proven(number(1), plus, number(2), true, false) instanceof Node.ProvenDouble);
+        assertTrue(Node.proven(number(1), plus, number(2), false, true) instanceof Node.ProvenConcat);
+        assertTrue(Node.proven(number(1), token(TokenType.EQUAL_EQUAL, "=="), number(2), true, false)
+                instanceof Node.Generic);
+    }
+
+    @Test
+    public void nodeIsReplacedInItsProfiledParent() {
+        Expr expr = new Expr.Binary(
+            new Expr.Literal(1.0), token(TokenType.MINUS, "-"), new Expr.Literal(2.0));
+        Profiler profiler = new Profiler();
+        Node.Root root = new NodeBuilder(heap, profiler, null).build(expr);
+
+        assertEquals(-1.0, Value.asNumber(root.execute(heap)), 0);
+        Node.Profiled profiled = (Node.Profiled) root.body;
+        assertTrue(profiled.child instanceof Node.DoubleSubtract);
+        assertSame(profiled, profiled.child.parent);
+        assertEquals(-1.0, Value.asNumber(root.execute(heap)), 0);
+    }
+}
@@ -0,0 +1,172 @@
+package com.retrolad.jvapor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that {@link ParallelScanner} gives the same tokens and errors as
+ * {@link Scanner#scanTokens()}. Chunks are kept tiny so that every source
+ * is split in many places.
+ */
+public class ParallelScannerTest {
+    private static final String[] PIECES = {
+        "(", ")", "1.5", "42", "3.", " ", "\t", "\n", "foo", "var", "+", "==", "!",
+        "\"a\nb\"", "\"\n\n\n", "\"", "// quote \" in comment\n", "@",
+    };
+
+    private PrintStream stderr;
+
+    @Before
+    public void saveStderr() {
+        stderr = System.err;
+    }
+
+    @After
+    public void restoreStderr() {
+        System.setErr(stderr);
+        Vapor.hadError = false;
+    }
+
+    /**
+     * Tokens and error output of one scan
+     */
+    private static class Result {
+        final List<Token> tokens;
+        final String errors;
+
+        Result(List<Token> tokens, String errors) {
+            this.tokens = tokens;
+            this.errors = errors;
+        }
+    }
+
+    private Result sequential(String source) {
+        ByteArrayOutputStream err = captureStderr();
+        return new Result(new Scanner(source).scanTokens(), err.toString());
+    }
+
+    private Result parallel(String source, int chunkSize) {
+        ByteArrayOutputStream err = captureStderr();
+        return new Result(new ParallelScanner(source, chunkSize).scanTokens(), err.toString());
+    }
+
+    private ByteArrayOutputStream captureStderr() {
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(err, true));
+        return err;
+    }
+
+    private static void assertSameTokens(String source, List<Token> expected, List<Token> actual) {
+        assertEquals(source, expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Token a = expected.get(i);
+            Token b = actual.get(i);
+            assertEquals(source, a.type, b.type);
+            assertEquals(source, a.lexeme, b.lexeme);
+            assertEquals(source, a.literal, b.literal);
+            assertEquals(source, a.line, b.line);
+        }
+    }
+
+    private void assertSameAsScanner(String source, int chunkSize) {
+        Result expected = sequential(source);
+        Result actual = parallel(source, chunkSize);
+        assertSameTokens(source, expected.tokens, actual.tokens);
+        assertEquals(source, expected.errors, actual.errors);
+    }
+
+    @Test
+    public void randomSourcesMatchScanner() {
+        Random random = new Random(42);
+        for (int i = 0; i < 3000; i++) {
+            StringBuilder source = new StringBuilder();
+            int pieces = random.nextInt(400);
+            for (int j = 0; j < pieces; j++) {
+                source.append(PIECES[random.nextInt(PIECES.length)]);
+            }
+            assertSameAsScanner(source.toString(), 1 + random.nextInt(20));
+        }
+    }
+
+    @Test
+    public void stringCrossingChunks() {
+        String source = "1 +\n\"first\nsecond\nthird\nfourth\"\n+ 2\n\"x\ny\" == 3\n";
+        assertSameAsScanner(source, 2);
+
+        Result result = parallel(source, 2);
+        Token string = result.tokens.get(2);
+        assertEquals(TokenType.STRING, string.type);
+        assertEquals("first\nsecond\nthird\nfourth", string.literal);
+        assertEquals(5, string.line);
+        assertEquals(6, result.tokens.get(4).line);
+    }
+
+    @Test
+    public void stringLongerThanTheChunksScannedAhead() {
+        StringBuilder source = new StringBuilder("1 + \"");
+        for (int i = 0; i < 200; i++) source.append("line\n");
+        source.append("\" + 2\n3\n");
+        assertSameAsScanner(source.toString(), 2);
+    }
+
+    @Test
+    public void unterminatedStringInLastChunk() {
+        String source = "1\n2\n3\n\"never\nclosed\n";
+        assertSameAsScanner(source, 2);
+
+        Result result = parallel(source, 2);
+        assertEquals("[line 6] Error: Unterminated string" + System.lineSeparator(), result.errors);
+    }
+
+    @Test
+    public void errorsComeOutInOrder() {
+        StringBuilder source = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int line = 1; line <= 50; line++) {
+            source.append("1 @ 2\n");
+            expected.append("[line ").append(line).append("] Error: Unexpected character.")
+                    .append(System.lineSeparator());
+        }
+
+        Result result = parallel(source.toString(), 8);
+        assertEquals(expected.toString(), result.errors);
+        assertTrue(Vapor.hadError);
+    }
+
+    @Test
+    public void ringGetsSameTokensInOrder() throws InterruptedException {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            builder.append("var x = (12.5 + foo) * \"str\ning\" // comment\n");
+        }
+        final String source = builder.toString();
+
+        final TokenRing ring = new TokenRing(4);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                new ParallelScanner(source, 100).scanTokens(ring, 7);
+            }
+        });
+        producer.start();
+
+        List<Token> tokens = new ArrayList<>();
+        TokenStream stream = new TokenStream(ring);
+        for (int i = 0; i < stream.size(); i++) {
+            tokens.add(stream.get(i));
+        }
+        producer.join();
+
+        assertSameTokens(source, new Scanner(source).scanTokens(), tokens);
+    }
+}
@@ -0,0 +1,97 @@
+package com.retrolad.jvapor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Checks the shape of what the {@link Profiler} reports. The timings
+ * themselves vary from run to run, so only their order is checked.
+ */
+public class ProfilerTest {
+    // 1 + (line 2) -2
+    private final Expr one = new Expr.Literal(1.0);
+    private final Expr two = new Expr.Literal(2.0);
+    private final Expr negate = new Expr.Unary(new Token(TokenType.MINUS, "-", null, 2), two);
+    private final Expr sum = new Expr.Binary(one, new Token(TokenType.PLUS, "+", null, 1), negate);
+
+    /**
+     * Walks the tree the way an evaluator would, spending some time in
+     * every node so each of them has a self time to report.
+     */
+    private Profiler profile() throws InterruptedException {
+        Profiler profiler = new Profiler();
+        profiler.enter(sum);
+        profiler.enter(one);
+        Thread.sleep(2);
+        profiler.exit(one);
+        profiler.enter(negate);
+        profiler.enter(two);
+        Thread.sleep(2);
+        profiler.exit(two);
+        Thread.sleep(2);
+        profiler.exit(negate);
+        Thread.sleep(2);
+        profiler.exit(sum);
+        return profiler;
+    }
+
+    @Test
+    public void reportListsTheMostExpensiveFirst() throws InterruptedException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        profile().report(new PrintStream(bytes, true));
+        String[] lines = bytes.toString().split("\n");
+
+        assertEquals(5, lines.length);
+        assertTrue(lines[0].contains("total(us)"));
+        assertTrue(lines[1].trim().startsWith("1 "));
+        assertTrue(lines[1].endsWith("binary +"));
+
+        int unary = -1;
+        int literal = -1;
+        for (int i = 1; i < lines.length; i++) {
+            if (lines[i].endsWith("unary -")) unary = i;
+            if (lines[i].endsWith("literal 2.0")) literal = i;
+        }
+        assertTrue(unary > 0 && unary < literal);
+        assertTrue(lines[unary].trim().startsWith("2 "));
+    }
+
+    @Test
+    public void inheritedLinesAreMarked() throws InterruptedException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        profile().report(new PrintStream(bytes, true));
+
+        for (String line : bytes.toString().split("\n")) {
+            if (line.endsWith("literal 1.0")) assertTrue(line.trim().startsWith("~1 "));
+            if (line.endsWith("literal 2.0")) assertTrue(line.trim().startsWith("~2 "));
+        }
+    }
+
+    @Test
+    public void collapsedStacksGoFromTheRootDown() throws InterruptedException, IOException {
+        StringWriter out = new StringWriter();
+        profile().writeCollapsed(out);
+
+        Set<String> stacks = new HashSet<>();
+        for (String line : out.toString().split("\n")) {
+            assertTrue(line, line.matches(".* [1-9][0-9]*"));
+            stacks.add(line.substring(0, line.lastIndexOf(' ')));
+        }
+
+        Set<String> expected = new HashSet<>();
+        expected.add("binary + :1");
+        expected.add("binary + :1;literal 1.0 :~1");
+        expected.add("binary + :1;unary - :2");
+        expected.add("binary + :1;unary - :2;literal 2.0 :~2");
+        assertEquals(expected, stacks);
+    }
+}
@@ -0,0 +1,113 @@
+package com.retrolad.jvapor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks {@link Rope} against a {@link StringBuilder} doing the same work.
+ */
+public class RopeTest {
+
+    private static String piece(Random random) {
+        String piece = Integer.toString(random.nextInt(1 << random.nextInt(30)));
+        // Now and then a piece too long to be copied into a leaf
+        if (random.nextInt(10) == 0) {
+            StringBuilder longer = new StringBuilder();
+            while (longer.length() < 100) longer.append(piece);
+            piece = longer.toString();
+        }
+        return piece;
+    }
+
+    @Test
+    public void randomAppendsAndPrependsMatchStringBuilder() {
+        Random random = new Random(1);
+        for (int i = 0; i < 200; i++) {
+            CharSequence rope = "";
+            StringBuilder expected = new StringBuilder();
+
+            int steps = random.nextInt(2000);
+            for (int j = 0; j < steps; j++) {
+                String piece = piece(random);
+                if (random.nextInt(5) == 0) {
+                    rope = Rope.concat(piece, rope);
+                    expected.insert(0, piece);
+                } else {
+                    rope = Rope.concat(rope, piece);
+                    expected.append(piece);
+                }
+
+                assertEquals(expected.length(), rope.length());
+                if (random.nextInt(50) == 0) {
+                    int index = random.nextInt(expected.length());
+                    assertEquals(expected.charAt(index), rope.charAt(index));
+                }
+                // Flattening midway must not break further joins.
+                if (random.nextInt(200) == 0) {
+                    assertEquals(expected.toString(), rope.toString());
+                }
+            }
+
+            if (rope instanceof Rope) {
+                int log2 = 32 - Integer.numberOfLeadingZeros(expected.length());
+                assertTrue(((Rope) rope).height() <= 1.45 * log2);
+            }
+            assertEquals(expected.toString(), rope.toString());
+        }
+    }
+
+    @Test
+    public void flattenedRopeStillJoins() {
+        CharSequence rope = "";
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            String piece = "piece " + i + " ";
+            rope = Rope.concat(rope, piece);
+            expected.append(piece);
+            if (i % 100 == 0) rope.toString();
+        }
+
+        assertEquals(expected.toString(), rope.toString());
+        assertEquals(expected.charAt(expected.length() / 2), rope.charAt(expected.length() / 2));
+    }
+
+    @Test
+    public void longChainStaysShallow() {
+        CharSequence rope = "";
+        for (int i = 0; i < 1000000; i++) {
+            rope = Rope.concat(rope, "ab");
+        }
+
+        // An AVL tree of n leaves is less than 1.45 log2(n) high.
+        int leaves = 2000000 / 64;
+        int log2 = 32 - Integer.numberOfLeadingZeros(leaves);
+        int height = ((Rope) rope).height();
+        assertTrue("height " + height, height > 0 && height <= 1.45 * log2);
+
+        assertEquals(2000000, rope.length());
+        assertEquals('b', rope.charAt(1999999));
+        assertEquals(2000000, rope.toString().length());
+    }
+
+    @Test
+    public void heapComparesRopesWithStrings() {
+        Value.Heap heap = new Value.Heap();
+        String prefix = new String(new char[100]).replace('\0', 'x');
+
+        long rope = heap.concat(heap.string(prefix), heap.string("yz"));
+        long string = heap.string(prefix + "yz");
+        long other = heap.string(prefix + "zz");
+
+        assertTrue(heap.get(rope) instanceof Rope);
+        assertTrue(heap.isEqual(rope, string));
+        assertTrue(heap.isEqual(string, rope));
+        assertTrue(heap.isEqual(rope, heap.concat(heap.string(prefix), heap.string("yz"))));
+        assertFalse(heap.isEqual(rope, other));
+        assertEquals(prefix + "yz", heap.stringify(rope));
+    }
+}
@@ -0,0 +1,122 @@
+package com.retrolad.jvapor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the type errors {@link TypeInference} reports before anything
+ * runs, and the types it finds where there are none.
+ */
+public class TypeInferenceTest {
+    private static final String NL = System.lineSeparator();
+
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+    private PrintStream stderr;
+
+    @Before
+    public void capture() {
+        stderr = System.err;
+        System.setErr(new PrintStream(err, true));
+        Vapor.hadError = false;
+    }
+
+    @After
+    public void restore() {
+        System.setErr(stderr);
+        Vapor.hadError = false;
+    }
+
+    private static Expr parse(String source) {
+        Expr expr = new Parser(new Scanner(source).scanTokens()).parse();
+        assertFalse(source, Vapor.hadError);
+        return expr;
+    }
+
+    /**
+     * Infers the types of the source and returns what was reported.
+     */
+    private String errors(String source) {
+        new TypeInference().infer(parse(source));
+        return err.toString();
+    }
+
+    @Test
+    public void addingStringAndNumber() {
+        assertEquals("[line 1] Error at '+': Operands must be two numbers or two strings." + NL,
+                errors("\"a\" + 1"));
+        assertTrue(Vapor.hadError);
+    }
+
+    @Test
+    public void negatingString() {
+        assertEquals("[line 1] Error at '-': Operand must be a number." + NL, errors("-\"x\""));
+    }
+
+    @Test
+    public void comparingStrings() {
+        assertEquals("[line 1] Error at '<': Operands must be numbers." + NL, errors("\"a\" < \"b\""));
+    }
+
+    @Test
+    public void addingNil() {
+        assertEquals("[line 1] Error at '+': Operands must be two numbers or two strings." + NL,
+                errors("nil + 1"));
+    }
+
+    @Test
+    public void nestedErrorIsReportedOnce() {
+        assertEquals("[line 1] Error at '+': Operands must be two numbers or two strings." + NL,
+                errors("-(1 + \"a\")"));
+    }
+
+    @Test
+    public void independentErrorsAreBothReported() {
+        assertEquals("[line 1] Error at '-': Operands must be numbers." + NL
+                + "[line 1] Error at '*': Operands must be numbers." + NL,
+                errors("(\"a\" - 1) == (true * 2)"));
+    }
+
+    @Test
+    public void errorCarriesOperatorLineAndLexeme() {
+        assertEquals("[line 3] Error at '>=': Operands must be numbers." + NL,
+                errors("1 +\n2 ==\n\"x\" >= 4"));
+    }
+
+    @Test
+    public void wellTypedExpressionIsFullyTyped() {
+        Expr expr = parse("(1 + 2) * 3 < 10 == !nil");
+        TypeInference types = new TypeInference();
+
+        assertEquals(StaticType.BOOLEAN, types.infer(expr));
+        assertTrue(types.isFullyTyped(expr));
+        assertEquals("", err.toString());
+        assertFalse(Vapor.hadError);
+    }
+
+    @Test
+    public void concatenationIsString() {
+        Expr expr = parse("\"a\" + \"b\"");
+        TypeInference types = new TypeInference();
+
+        assertEquals(StaticType.STRING, types.infer(expr));
+        assertTrue(types.isFullyTyped(expr));
+    }
+
+    @Test
+    public void expressionWithErrorIsNotFullyTyped() {
+        Expr expr = parse("(1 + \"a\") == 2");
+        TypeInference types = new TypeInference();
+
+        assertEquals(StaticType.BOOLEAN, types.infer(expr));
+        assertFalse(types.isFullyTyped(expr));
+        assertEquals(StaticType.UNKNOWN, types.typeOf(((Expr.Binary) expr).left));
+    }
+}
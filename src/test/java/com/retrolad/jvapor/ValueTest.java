@@ -0,0 +1,122 @@
+package com.retrolad.jvapor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks that every kind of value survives being packed into a
+ * {@code long} and can't be mistaken for another kind.
+ */
+public class ValueTest {
+
+    private static void assertOnlyNumber(long value) {
+        assertTrue(Value.isNumber(value));
+        assertFalse(Value.isNil(value));
+        assertFalse(Value.isBool(value));
+        assertFalse(Value.isRef(value));
+    }
+
+    @Test
+    public void numbersRoundTrip() {
+        double[] numbers = {
+            0.0, 1.0, -1.5, Double.MIN_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE,
+            Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY
+        };
+        for (double number : numbers) {
+            long value = Value.number(number);
+            assertOnlyNumber(value);
+            assertEquals(Double.doubleToRawLongBits(number),
+                    Double.doubleToRawLongBits(Value.asNumber(value)));
+        }
+    }
+
+    @Test
+    public void negativeZeroKeepsItsSign() {
+        long value = Value.number(-0.0);
+
+        assertOnlyNumber(value);
+        assertNotEquals(Value.number(0.0), value);
+        assertEquals(Double.doubleToRawLongBits(-0.0), Double.doubleToRawLongBits(Value.asNumber(value)));
+    }
+
+    @Test
+    public void nanIsCanonicalized() {
+        long nan = Value.number(0.0 / 0.0);
+        assertOnlyNumber(nan);
+        assertTrue(Double.isNaN(Value.asNumber(nan)));
+
+        // NaNs whose bits look like tagged values are folded into the same one.
+        long[] tagged = { Value.NIL, Value.TRUE, Value.FALSE, Value.ref(7), 0xfff8000000000001L };
+        for (long bits : tagged) {
+            long value = Value.number(Double.longBitsToDouble(bits));
+            assertOnlyNumber(value);
+            assertEquals(nan, value);
+        }
+    }
+
+    @Test
+    public void tagsAreDistinct() {
+        assertTrue(Value.isNil(Value.NIL));
+        assertFalse(Value.isBool(Value.NIL));
+        assertFalse(Value.isNumber(Value.NIL));
+        assertFalse(Value.isRef(Value.NIL));
+
+        for (boolean b : new boolean[] { true, false }) {
+            long value = Value.bool(b);
+            assertTrue(Value.isBool(value));
+            assertEquals(b, Value.asBool(value));
+            assertFalse(Value.isNil(value));
+            assertFalse(Value.isNumber(value));
+            assertFalse(Value.isRef(value));
+        }
+
+        assertFalse(Value.isTruthy(Value.NIL));
+        assertFalse(Value.isTruthy(Value.FALSE));
+        assertTrue(Value.isTruthy(Value.TRUE));
+        assertTrue(Value.isTruthy(Value.number(0)));
+    }
+
+    @Test
+    public void refsRoundTrip() {
+        int[] indices = { 0, 1, 2, 3, 1 << 20, Integer.MAX_VALUE - 1, Integer.MAX_VALUE };
+        for (int index : indices) {
+            long value = Value.ref(index);
+            assertTrue(Value.isRef(value));
+            assertFalse(Value.isNumber(value));
+            assertFalse(Value.isNil(value));
+            assertFalse(Value.isBool(value));
+            assertEquals(index, Value.asRef(value));
+        }
+    }
+
+    @Test
+    public void stringsAreInterned() {
+        Value.Heap heap = new Value.Heap();
+        long a = heap.string("vapor");
+        long b = heap.string(new String("vapor"));
+        long c = heap.box("vapor");
+        long other = heap.string("steam");
+
+        assertEquals(a, b);
+        assertEquals(a, c);
+        assertNotEquals(a, other);
+        assertTrue(heap.isString(a));
+        assertEquals("vapor", heap.get(a));
+        assertEquals("vapor", heap.stringify(a));
+    }
+
+    @Test
+    public void nanIsNotEqualToItself() {
+        Value.Heap heap = new Value.Heap();
+        long nan = Value.number(0.0 / 0.0);
+
+        assertFalse(heap.isEqual(nan, nan));
+        assertTrue(heap.isEqual(Value.number(0.0), Value.number(-0.0)));
+        assertTrue(heap.isEqual(Value.NIL, Value.NIL));
+        assertFalse(heap.isEqual(Value.NIL, Value.FALSE));
+    }
+}
@@ -0,0 +1,123 @@
+package com.retrolad.jvapor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs whole sources through {@link Vapor}, including the pipelined path
+ * large sources take.
+ */
+public class VaporTest {
+    // Just over the size at which Vapor switches to the pipelined path
+    private static final int LARGE = (1 << 20) + 1;
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+    private PrintStream stdout;
+    private PrintStream stderr;
+
+    @Before
+    public void capture() {
+        stdout = System.out;
+        stderr = System.err;
+        System.setOut(new PrintStream(out, true));
+        System.setErr(new PrintStream(err, true));
+        Vapor.hadError = false;
+    }
+
+    @After
+    public void restore() {
+        System.setOut(stdout);
+        System.setErr(stderr);
+        Vapor.hadError = false;
+    }
+
+    @Test
+    public void pipelinedRunEvaluatesLongChain() {
+        StringBuilder source = new StringBuilder("1");
+        int terms = 1;
+        while (source.length() < LARGE) {
+            source.append(" + 1");
+            terms++;
+        }
+
+        Vapor.run(source.toString());
+
+        assertEquals("", err.toString());
+        assertEquals(Integer.toString(terms), out.toString().trim());
+    }
+
+    @Test
+    public void pipelinedRunReportsErrorsPastTheExpression() {
+        StringBuilder source = new StringBuilder("1\n");
+        int line = 2;
+        while (source.length() < LARGE) {
+            source.append("2\n");
+            line++;
+        }
+        source.append("@\n");
+
+        Vapor.run(source.toString());
+
+        assertTrue(Vapor.hadError);
+        assertEquals("[line " + line + "] Error: Unexpected character.", err.toString().trim());
+        assertEquals("", out.toString());
+    }
+
+    /**
+     * Runs a source the pipelined way on a thread with a small stack, so
+     * a tree of moderate depth is already too deep for it.
+     */
+    private void runPipelinedOnSmallStack(final String source) throws InterruptedException {
+        Thread thread = new Thread(null, new Runnable() {
+            @Override
+            public void run() {
+                Vapor.runPipelined(source);
+            }
+        }, "small-stack", 256 * 1024);
+        thread.start();
+        thread.join();
+    }
+
+    @Test
+    public void tooDeepParseIsReported() throws InterruptedException {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 100000; i++) source.append('(');
+        source.append('1');
+        for (int i = 0; i < 100000; i++) source.append(')');
+
+        runPipelinedOnSmallStack(source.toString());
+
+        assertTrue(Vapor.hadError);
+        assertEquals("Error: Expression is nested too deeply.", err.toString().trim());
+        assertEquals("", out.toString());
+    }
+
+    @Test
+    public void tooDeepTreeIsReported() throws InterruptedException {
+        StringBuilder source = new StringBuilder("1");
+        for (int i = 0; i < 100000; i++) source.append(" + 1");
+
+        runPipelinedOnSmallStack(source.toString());
+
+        assertTrue(Vapor.hadError);
+        assertEquals("Error: Expression is nested too deeply.", err.toString().trim());
+        assertEquals("", out.toString());
+    }
+
+    @Test
+    public void smallRunEvaluates() {
+        Vapor.run("(1 + 2) * 3");
+
+        assertFalse(Vapor.hadError);
+        assertTrue(out.toString().trim().endsWith("\n9"));
+    }
+}